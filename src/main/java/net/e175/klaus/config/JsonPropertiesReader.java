@@ -0,0 +1,269 @@
+package net.e175.klaus.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * A streaming reader for JSON documents that flattens nested structures
+ * into dotted property keys while reading, without building a document tree.
+ * <p/>
+ * Object members are joined with a dot ({"db":{"host":"x"}} becomes db.host=x),
+ * array elements use their index ({"hosts":["a","b"]} becomes hosts.0=a and hosts.1=b).
+ * Strings, numbers and booleans are stored as their textual value; nulls, empty
+ * objects and empty arrays are skipped. The document must be a JSON object, nested
+ * at most 256 levels deep.
+ * <p/>
+ * Instances are not thread-safe and are meant to be used once.
+ */
+final class JsonPropertiesReader {
+
+    private static final int MAX_DEPTH = 256;
+
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    private final Reader reader;
+    private final Properties target;
+    private final StringBuilder path = new StringBuilder();
+
+    private int depth = 0;
+    private int peeked = -2;
+    private long position = 0;
+
+    private JsonPropertiesReader(final Reader reader, final Properties target) {
+        this.reader = reader;
+        this.target = target;
+    }
+
+    /**
+     * Read a JSON document and add its flattened entries to the given properties.
+     *
+     * @param reader source of the JSON document (should be buffered)
+     * @param target properties to add entries to
+     * @throws IOException if reading fails or the document is not well-formed
+     */
+    static void read(final Reader reader, final Properties target) throws IOException {
+        new JsonPropertiesReader(reader, target).readDocument();
+    }
+
+    private void readDocument() throws IOException {
+        expect('{');
+        readObject();
+        if (nextNonWhitespace() != -1) {
+            throw syntaxError("unexpected content after end of document");
+        }
+    }
+
+    private void readValue() throws IOException {
+        int c = peekNonWhitespace();
+        switch (c) {
+            case '{':
+                next();
+                enterNested();
+                readObject();
+                depth--;
+                break;
+            case '[':
+                next();
+                enterNested();
+                readArray();
+                depth--;
+                break;
+            case '"':
+                next();
+                put(readString());
+                break;
+            case 't':
+                put(readLiteral("true"));
+                break;
+            case 'f':
+                put(readLiteral("false"));
+                break;
+            case 'n':
+                readLiteral("null");
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    put(readNumber());
+                } else {
+                    throw syntaxError("unexpected character");
+                }
+        }
+    }
+
+    private void readObject() throws IOException {
+        if (peekNonWhitespace() == '}') {
+            next();
+            return;
+        }
+
+        while (true) {
+            expect('"');
+            final String name = readString();
+            expect(':');
+
+            final int mark = path.length();
+            appendSegment(name);
+            readValue();
+            path.setLength(mark);
+
+            final int c = nextNonWhitespace();
+            if (c == '}') {
+                return;
+            } else if (c != ',') {
+                throw syntaxError("expected ',' or '}'");
+            }
+        }
+    }
+
+    private void readArray() throws IOException {
+        if (peekNonWhitespace() == ']') {
+            next();
+            return;
+        }
+
+        for (int index = 0; ; index++) {
+            final int mark = path.length();
+            appendSegment(Integer.toString(index));
+            readValue();
+            path.setLength(mark);
+
+            final int c = nextNonWhitespace();
+            if (c == ']') {
+                return;
+            } else if (c != ',') {
+                throw syntaxError("expected ',' or ']'");
+            }
+        }
+    }
+
+    private void enterNested() throws IOException {
+        if (++depth > MAX_DEPTH) {
+            throw syntaxError("nesting too deep");
+        }
+    }
+
+    private String readString() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                sb.append(readEscape());
+            } else if (c == -1) {
+                throw syntaxError("unterminated string");
+            } else if (c < 0x20) {
+                throw syntaxError("control character in string");
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final int c = next();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("invalid unicode escape");
+                    }
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default:
+                throw syntaxError("invalid escape sequence");
+        }
+    }
+
+    private String readNumber() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        int c = peek();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+            sb.append((char) next());
+            c = peek();
+        }
+
+        final String number = sb.toString();
+        if (!NUMBER.matcher(number).matches()) {
+            throw syntaxError("invalid number " + number);
+        }
+        return number;
+    }
+
+    private String readLiteral(final String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw syntaxError("expected " + literal);
+            }
+        }
+        return literal;
+    }
+
+    private void appendSegment(final String segment) {
+        if (path.length() > 0) {
+            path.append('.');
+        }
+        path.append(segment);
+    }
+
+    private void put(final String value) {
+        target.setProperty(path.toString(), value);
+    }
+
+    private void expect(final char expected) throws IOException {
+        if (nextNonWhitespace() != expected) {
+            throw syntaxError("expected '" + expected + "'");
+        }
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            next();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        peekNonWhitespace();
+        return next();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+
+    private int next() throws IOException {
+        final int c = peek();
+        peeked = -2;
+        position++;
+        return c;
+    }
+
+    private IOException syntaxError(final String message) {
+        return new IOException("malformed JSON at character " + position + ": " + message);
+    }
+}
@@ -1,9 +1,13 @@
 package net.e175.klaus.config;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
 
 /**
@@ -24,12 +28,33 @@ public abstract class Location {
     protected abstract InputStream getInputStreamAndSetResolvedLocation() throws IOException;
 
     Properties load() throws IOException {
+        return snapshot().getProperties();
+    }
+
+    /**
+     * Loads this location and fingerprints exactly the content that was parsed.
+     * The fingerprint matches what {@link #fingerprint()} returns for the same content.
+     *
+     * @throws IOException if the location cannot be accessed or parsed
+     */
+    Snapshot snapshot() throws IOException {
+        final byte[] content = readContent();
+        return new Snapshot(loadFromStream(new ByteArrayInputStream(content)), toHex(sha256().digest(content)));
+    }
+
+    private byte[] readContent() throws IOException {
         try (InputStream input = getInputStreamAndSetResolvedLocation()) {
-            return loadFromStream(input);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return content.toByteArray();
         }
     }
 
-    private Properties loadFromStream(final InputStream inputStream) throws IOException {
+    Properties loadFromStream(final InputStream inputStream) throws IOException {
         try (InputStreamReader r = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
             Properties p = new Properties();
             p.load(r);
@@ -37,10 +62,53 @@ public abstract class Location {
         }
     }
 
+    /**
+     * Describes the current state of this location's content cheaply, so that a
+     * previously loaded snapshot can be validated without parsing it again.
+     * The default implementation hashes the raw content.
+     *
+     * @return a string that changes whenever the content changes
+     * @throws IOException if the location cannot be accessed
+     */
+    String fingerprint() throws IOException {
+        return toHex(sha256().digest(readContent()));
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * Feed a string into a digest, prefixed with its length so that consecutive
+     * strings cannot be confused with each other.
+     */
+    static void updateDigest(final MessageDigest digest, final String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(bytes);
+    }
+
+        static String toHex(final byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
     protected String getLocation() {
         return location;
     }
 
+    String getResolvedLocation() {
+        return resolvedLocation;
+    }
+
     protected void setResolvedLocation(final String resolvedLocation) {
         this.resolvedLocation = resolvedLocation;
     }
@@ -54,6 +122,28 @@ public abstract class Location {
         return NONEXISTENT_LOCATION;
     }
 
+    /**
+     * Properties loaded from a location, together with the fingerprint of the loaded content.
+     */
+    static final class Snapshot {
+
+        private final Properties properties;
+        private final String fingerprint;
+
+        Snapshot(final Properties properties, final String fingerprint) {
+            this.properties = properties;
+            this.fingerprint = fingerprint;
+        }
+
+        Properties getProperties() {
+            return properties;
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+    }
+
     private static final class NonexistentLocation extends Location {
 
         private NonexistentLocation(final String location) {
@@ -0,0 +1,124 @@
+package net.e175.klaus.config;
+
+import net.e175.klaus.config.PropertiesConfig.DecoderRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An implementation of {@link Config} that serves values directly from a
+ * read-only memory-mapped file published by {@link SharedConfigFile}.
+ * Keys are found by binary search over the file's sorted index, which has
+ * been fully validated by {@link SharedConfigFile} before this class is created.
+ * <p/>
+ * This class is immutable and thus thread-safe: the mapped buffer is only
+ * accessed with absolute reads, which do not change its state.
+ */
+final class MappedConfig implements Config {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedConfig.class);
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int indexOffset;
+    private final int entryCount;
+    private final List<Location> locations;
+    private final ValueDecoding valueDecoding;
+
+    private final long creationTimeMillis;
+
+    MappedConfig(final Path file, final ByteBuffer buffer, final int indexOffset, final int entryCount,
+                 final List<Location> locations, final List<DecoderRule> decoderRules) {
+        this.file = file;
+        this.buffer = buffer;
+        this.indexOffset = indexOffset;
+        this.entryCount = entryCount;
+        this.locations = Collections.unmodifiableList(new ArrayList<>(locations));
+        this.valueDecoding = new ValueDecoding(decoderRules);
+        this.creationTimeMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public ConfigValue key(final String key) {
+        String value = null;
+        Location location = null;
+
+        if (key != null) {
+            final int entry = find(key.getBytes(StandardCharsets.UTF_8));
+            if (entry >= 0) {
+                final int keyLength = buffer.getInt(entry);
+                final int valueOffset = entry + 4 + keyLength;
+                final int valueLength = buffer.getInt(valueOffset);
+                value = new String(bytesAt(valueOffset + 4, valueLength), StandardCharsets.UTF_8);
+                location = locations.get(buffer.getInt(valueOffset + 4 + valueLength));
+                LOG.trace("key {} found in location {}", key, location);
+            } else {
+                LOG.trace("key {} not found in {}", key, file);
+            }
+        }
+
+        return valueDecoding.valueOf(key, value, location);
+    }
+
+    /**
+     * @return offset of the entry for the given key, or -1 if there is none
+     */
+    private int find(final byte[] key) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int entry = buffer.getInt(indexOffset + 4 * mid);
+            final int cmp = compareKeyAt(entry, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKeyAt(final int entry, final byte[] key) {
+        final int length = buffer.getInt(entry);
+        final int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(entry + 4 + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private byte[] bytesAt(final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getCreationTimeMillis() {
+        return creationTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("MappedConfig:").append(file).append("(").append(entryCount).append(" entries); ");
+        for (final Location location : locations) {
+            builder.append(location).append("; ");
+        }
+        return builder.toString();
+    }
+}
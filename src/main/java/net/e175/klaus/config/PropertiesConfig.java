@@ -1,21 +1,28 @@
 package net.e175.klaus.config;
 
+import net.e175.klaus.config.Location.Snapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.regex.Pattern;
 
 /**
  * An implementation of {@link Config} based on Java Property files encoded
  * in UTF-8.
  * <p/>
- * This class is immutable and thus thread-safe.
+ * This class is immutable and thus thread-safe. Values that need decoding
+ * are memoized in a concurrent cache, so each one is decoded at most once.
  */
 public final class PropertiesConfig implements Config {
 
@@ -23,24 +30,36 @@ public final class PropertiesConfig implements Config {
 
     private final Map<Location, Properties> locationProperties;
 
+    private final Map<Location, String> locationFingerprints;
+
+    private final ValueDecoding valueDecoding;
+
     private final long creationTimeMillis;
 
     PropertiesConfig(final List<Location> locations) {
+        this(locations, Collections.<DecoderRule>emptyList());
+    }
+
+    PropertiesConfig(final List<Location> locations, final List<DecoderRule> decoderRules) {
         if (locations == null) {
             throw new IllegalArgumentException("locations must not be null");
         }
 
-        locationProperties = Collections.unmodifiableMap(load(locations));
+        valueDecoding = new ValueDecoding(decoderRules);
+        Map<Location, String> fingerprints = new HashMap<>();
+        locationProperties = Collections.unmodifiableMap(load(locations, fingerprints));
+        locationFingerprints = Collections.unmodifiableMap(fingerprints);
         creationTimeMillis = System.currentTimeMillis();
     }
 
-    private Map<Location, Properties> load(final List<Location> locations) {
+    private Map<Location, Properties> load(final List<Location> locations, final Map<Location, String> fingerprints) {
         Map<Location, Properties> locProp = new LinkedHashMap<>(locations.size());
         boolean success = false;
         for (final Location loc : locations) {
             try {
-                Properties loaded = loc.load();
-                locProp.put(loc, loaded);
+                Snapshot loaded = loc.snapshot();
+                locProp.put(loc, loaded.getProperties());
+                fingerprints.put(loc, loaded.getFingerprint());
                 success = true;
                 LOG.debug("loaded config from {}", loc);
             } catch (IOException ex) {
@@ -76,7 +95,18 @@ public final class PropertiesConfig implements Config {
             }
         }
 
-        return new Value(lastValue, lastLocation);
+        return valueDecoding.valueOf(key, lastValue, lastLocation);
+    }
+
+    Map<Location, Properties> getLocationProperties() {
+        return locationProperties;
+    }
+
+    /**
+     * @return fingerprints of the content actually loaded, for each successfully loaded location
+     */
+    Map<Location, String> getLocationFingerprints() {
+        return locationFingerprints;
     }
 
     @Override
@@ -97,7 +127,7 @@ public final class PropertiesConfig implements Config {
         return builder.toString();
     }
 
-    static final class Filesystem extends Location {
+    static class Filesystem extends Location {
 
         Filesystem(final String location) {
             super(location);
@@ -111,7 +141,7 @@ public final class PropertiesConfig implements Config {
         }
     }
 
-    static final class ContextClassloader extends Location {
+    static class ContextClassloader extends Location {
 
         ContextClassloader(final String location) {
             super(location);
@@ -129,4 +159,216 @@ public final class PropertiesConfig implements Config {
             }
         }
     }
+
+    static final class JsonFilesystem extends Filesystem {
+
+        JsonFilesystem(final String location) {
+            super(location);
+        }
+
+        @Override
+        Properties loadFromStream(final InputStream inputStream) throws IOException {
+            return loadJson(inputStream);
+        }
+    }
+
+    static final class JsonContextClassloader extends ContextClassloader {
+
+        JsonContextClassloader(final String location) {
+            super(location);
+        }
+
+        @Override
+        Properties loadFromStream(final InputStream inputStream) throws IOException {
+            return loadJson(inputStream);
+        }
+    }
+
+    static final class Environment extends Location {
+
+        private final Map<String, String> environment;
+
+        Environment(final String prefix) {
+            this(prefix, null);
+        }
+
+        /**
+         * @param environment variables to use instead of {@link System#getenv()}, mainly for testing
+         */
+        Environment(final String prefix, final Map<String, String> environment) {
+            super(prefix);
+            this.environment = environment;
+        }
+
+        @Override
+        protected InputStream getInputStreamAndSetResolvedLocation() throws IOException {
+            throw new IllegalStateException("environment is not a stream location");
+        }
+
+        @Override
+        String fingerprint() throws IOException {
+            return fingerprintOf(load());
+        }
+
+        @Override
+        Snapshot snapshot() throws IOException {
+            Properties p = load();
+            return new Snapshot(p, fingerprintOf(p));
+        }
+
+        @Override
+        Properties load() throws IOException {
+            final Map<String, String> env;
+            try {
+                env = environment != null ? environment : System.getenv();
+            } catch (SecurityException ex) {
+                throw new IOException("cannot access environment", ex);
+            }
+            setResolvedLocation("environment");
+
+            final String prefix = getLocation();
+            Properties p = new Properties();
+            for (final Entry<String, String> var : env.entrySet()) {
+                final String name = var.getKey();
+                if (name.length() > prefix.length() && name.startsWith(prefix)) {
+                    p.setProperty(name.substring(prefix.length()).toLowerCase(Locale.ROOT).replace('_', '.'), var.getValue());
+                }
+            }
+            return p;
+        }
+    }
+
+    static final class SystemProperties extends Location {
+
+        SystemProperties(final String prefix) {
+            super(prefix);
+        }
+
+        @Override
+        protected InputStream getInputStreamAndSetResolvedLocation() throws IOException {
+            throw new IllegalStateException("system properties are not a stream location");
+        }
+
+        @Override
+        String fingerprint() throws IOException {
+            return fingerprintOf(load());
+        }
+
+        @Override
+        Snapshot snapshot() throws IOException {
+            Properties p = load();
+            return new Snapshot(p, fingerprintOf(p));
+        }
+
+        @Override
+        Properties load() throws IOException {
+            final Properties system;
+            try {
+                system = System.getProperties();
+            } catch (SecurityException ex) {
+                throw new IOException("cannot access system properties", ex);
+            }
+            setResolvedLocation("system properties");
+
+            final String prefix = getLocation();
+            Properties p = new Properties();
+            for (final String name : system.stringPropertyNames()) {
+                if (name.length() > prefix.length() && name.startsWith(prefix)) {
+                    p.setProperty(name.substring(prefix.length()), system.getProperty(name));
+                }
+            }
+            return p;
+        }
+    }
+
+    /**
+     * @return hash over all entries in key order, each key and value length-prefixed
+     * so that different sets of entries cannot produce the same input
+     */
+    private static String fingerprintOf(final Properties properties) {
+        MessageDigest digest = Location.sha256();
+        for (final String name : new TreeSet<>(properties.stringPropertyNames())) {
+            Location.updateDigest(digest, name);
+            Location.updateDigest(digest, properties.getProperty(name));
+        }
+        return Location.toHex(digest.digest());
+    }
+
+        private static Properties loadJson(final InputStream inputStream) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            Properties p = new Properties();
+            JsonPropertiesReader.read(r, p);
+            return p;
+        }
+    }
+
+    /**
+     * A rule selecting which values are to be decoded, and by which {@link ValueDecoder}.
+     */
+    abstract static class DecoderRule {
+
+        private final ValueDecoder decoder;
+
+        DecoderRule(final ValueDecoder decoder) {
+            if (decoder == null) {
+                throw new IllegalArgumentException("decoder must not be null");
+            }
+            this.decoder = decoder;
+        }
+
+        /**
+         * @return the part of the raw value to be decoded, or null if this rule does not apply
+         */
+        abstract String encodedPart(String key, String rawValue);
+
+        ValueDecoder getDecoder() {
+            return decoder;
+        }
+    }
+
+    static final class ValuePrefixRule extends DecoderRule {
+
+        private final String prefix;
+
+        ValuePrefixRule(final String prefix, final ValueDecoder decoder) {
+            super(decoder);
+            if (prefix == null || prefix.isEmpty()) {
+                throw new IllegalArgumentException("prefix must not be empty");
+            }
+            this.prefix = prefix;
+        }
+
+        @Override
+        String encodedPart(final String key, final String rawValue) {
+            return rawValue.startsWith(prefix) ? rawValue.substring(prefix.length()) : null;
+        }
+
+        @Override
+        public String toString() {
+            return "ValuePrefixRule:" + prefix;
+        }
+    }
+
+    static final class KeyPatternRule extends DecoderRule {
+
+        private final Pattern keyPattern;
+
+        KeyPatternRule(final Pattern keyPattern, final ValueDecoder decoder) {
+            super(decoder);
+            if (keyPattern == null) {
+                throw new IllegalArgumentException("keyPattern must not be null");
+            }
+            this.keyPattern = keyPattern;
+        }
+
+        @Override
+        String encodedPart(final String key, final String rawValue) {
+            return keyPattern.matcher(key).matches() ? rawValue : null;
+        }
+
+        @Override
+        public String toString() {
+            return "KeyPatternRule:" + keyPattern;
+        }
+    }
 }
@@ -1,10 +1,19 @@
 package net.e175.klaus.config;
 
 import net.e175.klaus.config.PropertiesConfig.ContextClassloader;
+import net.e175.klaus.config.PropertiesConfig.DecoderRule;
+import net.e175.klaus.config.PropertiesConfig.Environment;
 import net.e175.klaus.config.PropertiesConfig.Filesystem;
+import net.e175.klaus.config.PropertiesConfig.JsonContextClassloader;
+import net.e175.klaus.config.PropertiesConfig.JsonFilesystem;
+import net.e175.klaus.config.PropertiesConfig.KeyPatternRule;
+import net.e175.klaus.config.PropertiesConfig.SystemProperties;
+import net.e175.klaus.config.PropertiesConfig.ValuePrefixRule;
 
+import java.io.File;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * An implementation of {@link ConfigBuilder} to create instances of {@link PropertiesConfig}.
@@ -18,12 +27,19 @@ public final class PropertiesConfigBuilder implements ConfigBuilder {
 
     private final List<Location> locations = new LinkedList<>();
 
+    private final List<DecoderRule> decoderRules = new LinkedList<>();
+
+    private File sharedDirectory;
+
     private PropertiesConfigBuilder() {
     }
 
     @Override
     public synchronized Config load() {
-        return new PropertiesConfig(locations);
+        if (sharedDirectory != null) {
+            return SharedConfigFile.loadOrPublish(sharedDirectory, locations, decoderRules);
+        }
+        return new PropertiesConfig(locations, decoderRules);
     }
 
     /**
@@ -50,6 +66,32 @@ public final class PropertiesConfigBuilder implements ConfigBuilder {
         return instance.overrideFromClassloader(classloaderPath);
     }
 
+    /**
+     * Create a new instance.
+     *
+     * @param filesystemPath path (including filename) to a JSON file accessible on the filesystem.
+     *                       May be null, in which case it is ignored.
+     * @return PropertiesConfigBuilder instance
+     * @see #overrideFromFilesystemJson(String)
+     */
+    public static PropertiesConfigBuilder defaultFromFilesystemJson(final String filesystemPath) {
+        PropertiesConfigBuilder instance = new PropertiesConfigBuilder();
+        return instance.overrideFromFilesystemJson(filesystemPath);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param classloaderPath path (including filename) to a JSON file accessible via context classloader.
+     *                        May be null, in which case it is ignored.
+     * @return PropertiesConfigBuilder instance
+     * @see #overrideFromClassloaderJson(String)
+     */
+    public static PropertiesConfigBuilder defaultFromClassloaderJson(final String classloaderPath) {
+        PropertiesConfigBuilder instance = new PropertiesConfigBuilder();
+        return instance.overrideFromClassloaderJson(classloaderPath);
+    }
+
     /**
      * Add an overriding location to an instance.
      *
@@ -72,6 +114,126 @@ public final class PropertiesConfigBuilder implements ConfigBuilder {
         return classloaderPath != null ? appendLocation(new ContextClassloader(classloaderPath)) : this;
     }
 
+    /**
+     * Add an overriding location to an instance. The JSON document is read in a streaming
+     * fashion and flattened to dotted keys: nested objects are joined with dots, array
+     * elements are addressed by index (e.g. "servers.0.host"). Null values are ignored.
+     *
+     * @param filesystemPath path (including filename) to a JSON file accessible on the filesystem.
+     *                       May be null, in which case it is ignored.
+     * @return PropertiesConfigBuilder instance
+     */
+    public PropertiesConfigBuilder overrideFromFilesystemJson(final String filesystemPath) {
+        return filesystemPath != null ? appendLocation(new JsonFilesystem(filesystemPath)) : this;
+    }
+
+    /**
+     * Add an overriding location to an instance. The JSON document is read in a streaming
+     * fashion and flattened to dotted keys.
+     *
+     * @param classloaderPath path (including filename) to a JSON file accessible via context classloader.
+     *                        May be null, in which case it is ignored.
+     * @return PropertiesConfigBuilder instance
+     * @see #overrideFromFilesystemJson(String)
+     */
+    public PropertiesConfigBuilder overrideFromClassloaderJson(final String classloaderPath) {
+        return classloaderPath != null ? appendLocation(new JsonContextClassloader(classloaderPath)) : this;
+    }
+
+    /**
+     * Add an overriding location to an instance, containing all environment variables whose
+     * names start with the given prefix. The prefix is stripped and the remainder is lowercased,
+     * with underscores replaced by dots: with prefix "MYAPP_", MYAPP_DB_POOL_SIZE becomes db.pool.size.
+     * <p/>
+     * Since lookups are case-sensitive, environment variables can only override keys that are
+     * all lowercase: there is no variable name that maps to a mixed-case key such as "longKey1".
+     * Use {@link #overrideFromSystemProperties(String)} for those.
+     * <p/>
+     * The environment is read once when {@link #load()} is called, not on every lookup.
+     *
+     * @param prefix prefix of relevant variable names, e.g. "MYAPP_".
+     *               May be null, in which case it is ignored.
+     * @return PropertiesConfigBuilder instance
+     */
+    public PropertiesConfigBuilder overrideFromEnvironment(final String prefix) {
+        return prefix != null ? appendLocation(new Environment(prefix)) : this;
+    }
+
+    /**
+     * Add an overriding location to an instance, containing all system properties whose
+     * names start with the given prefix. The prefix is stripped, the remainder is used as is:
+     * with prefix "myapp.", -Dmyapp.db.pool.size=5 becomes db.pool.size.
+     * <p/>
+     * System properties are read once when {@link #load()} is called, not on every lookup.
+     *
+     * @param prefix prefix of relevant property names, e.g. "myapp.".
+     *               May be null, in which case it is ignored.
+     * @return PropertiesConfigBuilder instance
+     */
+    public PropertiesConfigBuilder overrideFromSystemProperties(final String prefix) {
+        return prefix != null ? appendLocation(new SystemProperties(prefix)) : this;
+    }
+
+    /**
+     * Decode all values starting with the given prefix. The prefix is stripped
+     * before the remainder is passed to the decoder. Values are decoded lazily on
+     * first access and at most once per {@link Config} instance.
+     * <p/>
+     * If several decoders match a value, the one registered first wins.
+     *
+     * @param prefix  value prefix, e.g. "enc:" (must not be empty)
+     * @param decoder decoder to apply
+     * @return PropertiesConfigBuilder instance
+     */
+    public PropertiesConfigBuilder decodeValuesWithPrefix(final String prefix, final ValueDecoder decoder) {
+        return appendDecoderRule(new ValuePrefixRule(prefix, decoder));
+    }
+
+    /**
+     * Decode the values of all keys matching the given regular expression. The entire
+     * value is passed to the decoder. Values are decoded lazily on first access and
+     * at most once per {@link Config} instance.
+     * <p/>
+     * If several decoders match a value, the one registered first wins.
+     *
+     * @param keyRegex regular expression that must match the entire key
+     * @param decoder  decoder to apply
+     * @return PropertiesConfigBuilder instance
+     */
+    public PropertiesConfigBuilder decodeKeysMatching(final String keyRegex, final ValueDecoder decoder) {
+        if (keyRegex == null) {
+            throw new IllegalArgumentException("keyRegex must not be null");
+        }
+        return appendDecoderRule(new KeyPatternRule(Pattern.compile(keyRegex), decoder));
+    }
+
+    /**
+     * Share loaded configuration data with other processes through a memory-mapped file
+     * in the given local directory. On {@link #load()}, a fingerprint of all locations is
+     * computed from a hash of their content, which is much cheaper than parsing them.
+     * If a file with a matching fingerprint exists, it is mapped read-only and lookups are
+     * served directly from it, skipping parsing. Otherwise the locations are loaded as usual
+     * and the result is published for other processes.
+     * <p/>
+     * If the directory cannot be used, loading falls back to the normal behaviour.
+     * Raw (undecoded) values are written to the shared file, so the directory should only be
+     * accessible to the processes sharing it. Outdated files for the same locations are
+     * removed whenever a new file is published.
+     *
+     * @param directoryPath path to a local directory, created if missing.
+     *                      May be null, in which case sharing is disabled.
+     * @return PropertiesConfigBuilder instance
+     */
+    public synchronized PropertiesConfigBuilder shareViaDirectory(final String directoryPath) {
+        this.sharedDirectory = directoryPath != null ? new File(directoryPath) : null;
+        return this;
+    }
+
+    private synchronized PropertiesConfigBuilder appendDecoderRule(final DecoderRule rule) {
+        this.decoderRules.add(rule);
+        return this;
+    }
+
     private synchronized PropertiesConfigBuilder appendLocation(final Location location) {
         this.locations.add(location);
         return this;
@@ -0,0 +1,366 @@
+package net.e175.klaus.config;
+
+import net.e175.klaus.config.PropertiesConfig.DecoderRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Publishes merged configuration data to a memory-mapped file in a shared
+ * directory, so that several processes using the same locations can serve
+ * lookups from one copy in the page cache instead of each parsing the locations.
+ * <p/>
+ * The file name consists of an identifier of the location list and a fingerprint of all
+ * locations' content (see {@link Location#fingerprint()}), so any change to a location leads
+ * to a new file. A file is only published if the content that was actually parsed matches
+ * that fingerprint. The file is written to a temporary file and atomically moved into place;
+ * files superseded for the same location list are deleted afterwards.
+ * <p/>
+ * File layout (big-endian): magic, format version, 32-byte fingerprint, location count,
+ * one resolved location string per location (length -1 if not loaded), entry count, an index
+ * of entry offsets sorted by the keys' UTF-8 bytes, and the entries themselves
+ * (key, value, location index). Strings are stored as length-prefixed UTF-8.
+ */
+final class SharedConfigFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedConfigFile.class);
+
+    private static final int MAGIC = 0x4b434647;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    private SharedConfigFile() {
+    }
+
+    /**
+     * Map the shared file matching the current state of the locations, or load the
+     * locations and publish a new shared file if there is none.
+     *
+     * @return Config object, either backed by the shared file or freshly loaded
+     * @throws IllegalStateException if no configuration location could be accessed.
+     */
+    static Config loadOrPublish(final File directory, final List<Location> locations, final List<DecoderRule> decoderRules) {
+        final byte[] fingerprint = fingerprint(locations);
+        final String filePrefix = "config-" + locationSetId(locations) + "-";
+        final Path file;
+        try {
+            file = directory.toPath().toAbsolutePath().resolve(filePrefix + Location.toHex(fingerprint) + ".v" + FORMAT_VERSION);
+        } catch (RuntimeException ex) {
+            LOG.debug("cannot use shared config directory " + directory + ", loading locations instead", ex);
+            return new PropertiesConfig(locations, decoderRules);
+        }
+
+        if (Files.isRegularFile(file)) {
+            try {
+                Config mapped = map(file, fingerprint, locations, decoderRules);
+                LOG.debug("mapped shared config from {}", file);
+                return mapped;
+            } catch (IOException | RuntimeException ex) {
+                LOG.debug("could not map shared config file " + file + ", loading locations instead", ex);
+            }
+        }
+
+        PropertiesConfig config = new PropertiesConfig(locations, decoderRules);
+        if (!Arrays.equals(fingerprint, fingerprint(locations, config.getLocationFingerprints()))) {
+            LOG.debug("locations changed while loading or could not be parsed, not publishing {}", file);
+            return config;
+        }
+        try {
+            publish(file, fingerprint, locations, config);
+            LOG.debug("published shared config to {}", file);
+            removeSuperseded(file, filePrefix);
+        } catch (IOException | RuntimeException ex) {
+            LOG.debug("could not publish shared config file " + file, ex);
+        }
+        return config;
+    }
+
+    /**
+     * @return a short identifier of the location list itself (not its content), which
+     * is stable across content changes and thus lets outdated files be found
+     */
+    private static String locationSetId(final List<Location> locations) {
+        StringBuilder sb = new StringBuilder();
+        for (final Location loc : locations) {
+            sb.append(loc.getClass().getName()).append('\0').append(loc.getLocation()).append('\0');
+        }
+        return Location.toHex(Location.sha256().digest(sb.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+
+    /**
+     * Delete files for the same location list that have been superseded by the given one.
+     * Processes that still have them mapped keep their mapping on POSIX systems.
+     */
+    private static void removeSuperseded(final Path current, final String filePrefix) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(current.getParent(), filePrefix + "*.v" + FORMAT_VERSION)) {
+            for (final Path file : files) {
+                if (!file.getFileName().equals(current.getFileName())) {
+                    try {
+                        Files.deleteIfExists(file);
+                        LOG.debug("removed superseded shared config file {}", file);
+                    } catch (IOException ex) {
+                        LOG.debug("could not remove superseded shared config file " + file, ex);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            LOG.debug("could not list shared config directory " + current.getParent(), ex);
+        }
+    }
+
+    /**
+     * @return combined fingerprint of the current content of all locations
+     */
+    private static byte[] fingerprint(final List<Location> locations) {
+        final Map<Location, String> fingerprints = new HashMap<>();
+        for (final Location loc : locations) {
+            try {
+                fingerprints.put(loc, loc.fingerprint());
+            } catch (IOException | RuntimeException ex) {
+                LOG.trace("no fingerprint for location {}: {}", loc, ex.toString());
+            }
+        }
+        return fingerprint(locations, fingerprints);
+    }
+
+    /**
+     * @param fingerprints fingerprints of all accessible locations
+     * @return combined fingerprint of the given location fingerprints
+     */
+    private static byte[] fingerprint(final List<Location> locations, final Map<Location, String> fingerprints) {
+        MessageDigest digest = Location.sha256();
+        Location.updateDigest(digest, Integer.toString(FORMAT_VERSION));
+        for (final Location loc : locations) {
+            Location.updateDigest(digest, loc.getClass().getName());
+            Location.updateDigest(digest, loc.getLocation());
+            final String fingerprint = fingerprints.get(loc);
+            if (fingerprint != null) {
+                Location.updateDigest(digest, fingerprint);
+                Location.updateDigest(digest, String.valueOf(loc.getResolvedLocation()));
+            } else {
+                Location.updateDigest(digest, "-");
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void publish(final Path file, final byte[] fingerprint, final List<Location> locations,
+                                final PropertiesConfig config) throws IOException {
+        final Map<Location, Properties> locationProperties = config.getLocationProperties();
+
+        final Map<String, Record> merged = new HashMap<>();
+        for (final Entry<Location, Properties> locProp : locationProperties.entrySet()) {
+            final int locationIndex = indexOf(locations, locProp.getKey());
+            final Properties props = locProp.getValue();
+            for (final String key : props.stringPropertyNames()) {
+                merged.put(key, new Record(key, props.getProperty(key), locationIndex));
+            }
+        }
+
+        final List<Record> records = new ArrayList<>(merged.values());
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(final Record a, final Record b) {
+                return compareUtf8(a.key, b.key);
+            }
+        });
+
+        Files.createDirectories(file.getParent());
+        final Path temp = Files.createTempFile(file.getParent(), "config-", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(fingerprint);
+
+                out.writeInt(locations.size());
+                for (final Location loc : locations) {
+                    writeString(out, locationProperties.containsKey(loc) ? loc.getResolvedLocation() : null);
+                }
+
+                out.writeInt(records.size());
+                int offset = out.size() + 4 * records.size();
+                for (final Record record : records) {
+                    out.writeInt(offset);
+                    offset += 4 + record.key.length + 4 + record.value.length + 4;
+                }
+                for (final Record record : records) {
+                    out.writeInt(record.key.length);
+                    out.write(record.key);
+                    out.writeInt(record.value.length);
+                    out.write(record.value);
+                    out.writeInt(record.locationIndex);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Config map(final Path file, final byte[] fingerprint, final List<Location> locations,
+                              final List<DecoderRule> decoderRules) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("not a shared config file of version " + FORMAT_VERSION);
+            }
+            byte[] storedFingerprint = new byte[FINGERPRINT_LENGTH];
+            buffer.get(storedFingerprint);
+            if (!Arrays.equals(fingerprint, storedFingerprint)) {
+                throw new IOException("fingerprint mismatch");
+            }
+
+            if (buffer.getInt() != locations.size()) {
+                throw new IOException("location count mismatch");
+            }
+            final String[] resolvedLocations = new String[locations.size()];
+            for (int i = 0; i < resolvedLocations.length; i++) {
+                resolvedLocations[i] = readString(buffer);
+            }
+
+            final int entryCount = buffer.getInt();
+            final int indexOffset = buffer.position();
+            if (entryCount < 0 || indexOffset + 4L * entryCount > buffer.limit()) {
+                throw new IOException("truncated index");
+            }
+            validateEntries(buffer, indexOffset, entryCount, resolvedLocations);
+
+            for (int i = 0; i < resolvedLocations.length; i++) {
+                if (resolvedLocations[i] != null) {
+                    locations.get(i).setResolvedLocation(resolvedLocations[i]);
+                }
+            }
+            return new MappedConfig(file, buffer, indexOffset, entryCount, locations, decoderRules);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("truncated shared config file", ex);
+        }
+    }
+
+    /**
+     * Checks every entry once, so that lookups can trust offsets, lengths and location
+     * indexes: entries must lie within the data area, refer to a loaded location,
+     * and be sorted by key without duplicates.
+     */
+    private static void validateEntries(final ByteBuffer buffer, final int indexOffset, final int entryCount,
+                                        final String[] resolvedLocations) throws IOException {
+        final long dataOffset = indexOffset + 4L * entryCount;
+        final long limit = buffer.limit();
+        int previousEntry = -1;
+        for (int i = 0; i < entryCount; i++) {
+            final int entry = buffer.getInt(indexOffset + 4 * i);
+            if (entry < dataOffset || entry + 4L > limit) {
+                throw new IOException("invalid offset for entry " + i);
+            }
+            final int keyLength = buffer.getInt(entry);
+            final long valueOffset = entry + 4L + keyLength;
+            if (keyLength < 0 || valueOffset + 4 > limit) {
+                throw new IOException("invalid key length for entry " + i);
+            }
+            final int valueLength = buffer.getInt((int) valueOffset);
+            final long locationOffset = valueOffset + 4 + valueLength;
+            if (valueLength < 0 || locationOffset + 4 > limit) {
+                throw new IOException("invalid value length for entry " + i);
+            }
+            final int locationIndex = buffer.getInt((int) locationOffset);
+            if (locationIndex < 0 || locationIndex >= resolvedLocations.length || resolvedLocations[locationIndex] == null) {
+                throw new IOException("invalid location index for entry " + i);
+            }
+            if (previousEntry >= 0 && compareKeys(buffer, previousEntry, entry) >= 0) {
+                throw new IOException("entries not sorted at entry " + i);
+            }
+            previousEntry = entry;
+        }
+    }
+
+    private static int compareKeys(final ByteBuffer buffer, final int entryA, final int entryB) {
+        final int lengthA = buffer.getInt(entryA);
+        final int lengthB = buffer.getInt(entryB);
+        final int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(entryA + 4 + i) & 0xff) - (buffer.get(entryB + 4 + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static int indexOf(final List<Location> locations, final Location location) {
+        for (int i = 0; i < locations.size(); i++) {
+            if (locations.get(i) == location) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("unknown location " + location);
+    }
+
+    /**
+     * Compares UTF-8 byte sequences as unsigned bytes, which is equivalent to code point order.
+     */
+    private static int compareUtf8(final byte[] a, final byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        } else if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Record {
+        final byte[] key;
+        final byte[] value;
+        final int locationIndex;
+
+        Record(final String key, final String value, final int locationIndex) {
+            this.key = key.getBytes(StandardCharsets.UTF_8);
+            this.value = value.getBytes(StandardCharsets.UTF_8);
+            this.locationIndex = locationIndex;
+        }
+    }
+}
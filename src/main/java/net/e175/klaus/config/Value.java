@@ -6,18 +6,59 @@ import java.util.NoSuchElementException;
  * Value implements {@link ConfigValue} and holds values read from config,
  * even nonexistent ones (similar to a Null Object).
  * <p/>
- * This class is immutable and thus thread-safe.
+ * Values that need decoding are decoded on first access only. The decoded
+ * result is memoized, so this class is effectively immutable and thread-safe.
  */
 public final class Value implements ConfigValue {
 
     private final boolean exists;
-    private final String internalValue;
+    private final String rawValue;
     private final Location fromLocation;
 
+    private final PendingDecode pending;
+    private volatile String decodedValue;
+
     Value(final String internalValue, final Location fromLocation) {
         this.exists = internalValue != null;
-        this.internalValue = internalValue;
+        this.rawValue = internalValue;
+        this.fromLocation = fromLocation != null ? fromLocation : Location.getNonexistentLocation();
+        this.pending = null;
+    }
+
+    /**
+     * Creates a value that is decoded lazily on first access.
+     *
+     * @param rawValue     value as found in the location (not null)
+     * @param fromLocation location the value was loaded from
+     * @param decoder      decoder to apply
+     * @param encodedValue the part of rawValue to pass to the decoder
+     */
+    Value(final String rawValue, final Location fromLocation, final ValueDecoder decoder, final String encodedValue) {
+        this.exists = true;
+        this.rawValue = rawValue;
         this.fromLocation = fromLocation != null ? fromLocation : Location.getNonexistentLocation();
+        this.pending = new PendingDecode(decoder, encodedValue);
+    }
+
+    private String internalValue() {
+        if (pending == null) {
+            return rawValue;
+        }
+
+        String value = decodedValue;
+        if (value == null) {
+            synchronized (pending) {
+                value = decodedValue;
+                if (value == null) {
+                    value = pending.decoder.decode(pending.encodedValue);
+                    if (value == null) {
+                        throw new IllegalArgumentException("decoder returned null for value from " + fromLocation);
+                    }
+                    decodedValue = value;
+                }
+            }
+        }
+        return value;
     }
 
     @Override
@@ -28,7 +69,7 @@ public final class Value implements ConfigValue {
     @Override
     public String asString() {
         if (exists) {
-            return internalValue;
+            return internalValue();
         } else {
             throw new NoSuchElementException("value does not exist");
         }
@@ -76,8 +117,20 @@ public final class Value implements ConfigValue {
 
     @Override
     public String toString() {
-        return "Value{" + "exists=" + exists + ", internalValue=" + internalValue + ", fromLocation=" + fromLocation + '}';
+        return "Value{" + "exists=" + exists + ", internalValue=" + rawValue + ", fromLocation=" + fromLocation + '}';
     }
 
-
+    /**
+     * Inputs for lazy decoding, kept in a final field so they are visible to
+     * any thread that sees the Value, however it was published.
+     */
+    private static final class PendingDecode {
+        private final ValueDecoder decoder;
+        private final String encodedValue;
+
+        private PendingDecode(final ValueDecoder decoder, final String encodedValue) {
+            this.decoder = decoder;
+            this.encodedValue = encodedValue;
+        }
+    }
 }
@@ -0,0 +1,19 @@
+package net.e175.klaus.config;
+
+/**
+ * A ValueDecoder turns an encoded configuration value (e.g. an encrypted
+ * secret or a base64 blob) into its plain string form.
+ * <p/>
+ * Decoders are only invoked when a value is actually read, and at most once
+ * per key and {@link Config} instance. Implementations must be thread-safe.
+ */
+public interface ValueDecoder {
+
+    /**
+     * @param encoded encoded value as found in the configuration location (never null)
+     * @return decoded value (must not be null)
+     * @throws IllegalArgumentException if the value cannot be decoded
+     */
+    String decode(String encoded);
+
+}
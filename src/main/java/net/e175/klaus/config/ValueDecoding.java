@@ -0,0 +1,68 @@
+package net.e175.klaus.config;
+
+import net.e175.klaus.config.PropertiesConfig.DecoderRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates {@link Value} objects for a {@link Config}, applying the first matching
+ * {@link DecoderRule}. If any rules are registered, the Value for each existing
+ * key is memoized, so rules are evaluated and values decoded at most once per key
+ * and Config instance.
+ * <p/>
+ * This class is thread-safe.
+ */
+final class ValueDecoding {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ValueDecoding.class);
+
+    private final List<DecoderRule> decoderRules;
+
+    private final ConcurrentMap<String, Value> cachedValues = new ConcurrentHashMap<>();
+
+    ValueDecoding(final List<DecoderRule> decoderRules) {
+        if (decoderRules == null) {
+            throw new IllegalArgumentException("decoderRules must not be null");
+        }
+        this.decoderRules = Collections.unmodifiableList(new ArrayList<>(decoderRules));
+    }
+
+    /**
+     * @param key          key that was looked up
+     * @param rawValue     value as found in the location, or null if none was found
+     * @param fromLocation location the value was loaded from, or null if none was found
+     * @return Value object (never null)
+     */
+    Value valueOf(final String key, final String rawValue, final Location fromLocation) {
+        if (rawValue == null || decoderRules.isEmpty()) {
+            return new Value(rawValue, fromLocation);
+        }
+
+        Value cached = cachedValues.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Value value = null;
+        for (final DecoderRule rule : decoderRules) {
+            String encoded = rule.encodedPart(key, rawValue);
+            if (encoded != null) {
+                LOG.trace("key {} will be decoded by {}", key, rule);
+                value = new Value(rawValue, fromLocation, rule.getDecoder(), encoded);
+                break;
+            }
+        }
+        if (value == null) {
+            value = new Value(rawValue, fromLocation);
+        }
+
+        Value existing = cachedValues.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+}
@@ -1,16 +1,29 @@
 package net.e175.klaus.config;
 
 import static net.e175.klaus.config.PropertiesConfigBuilder.defaultFromClassloader;
+import static net.e175.klaus.config.PropertiesConfigBuilder.defaultFromClassloaderJson;
 import static net.e175.klaus.config.PropertiesConfigBuilder.defaultFromFilesystem;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.InputStream;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -257,12 +270,380 @@ public class PropertiesConfigTest {
 				   config.getCreationTimeMillis() <= after);		
 	}
 	
+	@Test
+	public void decodesValuesWithPrefix() {
+		config = defaultFromClassloader("classpath2.properties") //
+				.decodeValuesWithPrefix("rev:", new ReversingDecoder()) //
+				.load();
+
+		assertEquals("secret", config.key("secretKey").asString());
+		assertEquals("rev", config.key("plainKey").asString());
+		assertEquals("value1-2", config.key("key1").asString());
+		assertTrue(config.key("secretKey").loadedFrom().toString().contains("classpath2.properties"));
+	}
+
+	@Test
+	public void decodesValuesOfMatchingKeys() {
+		config = defaultFromClassloader("classpath2.properties") //
+				.decodeKeysMatching("blob\\..*", new ReversingDecoder()) //
+				.load();
+
+		assertEquals("data", config.key("blob.data").asString());
+		assertEquals("rev:terces", config.key("secretKey").asString());
+	}
+
+	@Test
+	public void memoizesValuesNotMatchingAnyDecoder() {
+		config = defaultFromClassloader("classpath2.properties") //
+				.decodeKeysMatching("blob\\..*", new ReversingDecoder()) //
+				.load();
+
+		assertSame(config.key("key1"), config.key("key1"));
+		assertEquals("value1-2", config.key("key1").asString());
+	}
+
+	@Test
+	public void decodesLazilyAndOnlyOnce() {
+		ReversingDecoder decoder = new ReversingDecoder();
+		config = defaultFromClassloader("classpath2.properties") //
+				.decodeKeysMatching(".*", decoder) //
+				.load();
+
+		assertEquals(0, decoder.calls.get());
+
+		ConfigValue value = config.key("key1");
+		assertTrue(value.exists());
+		assertEquals(0, decoder.calls.get());
+
+		assertEquals("2-1eulav", value.asString());
+		assertEquals("2-1eulav", config.key("key1").asString());
+		assertEquals(1, decoder.calls.get());
+		assertFalse(config.key("keydoesnotexist").exists());
+		assertEquals(1, decoder.calls.get());
+	}
+
+	@Test
+	public void configValueToStringDoesNotRevealDecodedValue() {
+		config = defaultFromClassloader("classpath2.properties") //
+				.decodeValuesWithPrefix("rev:", new ReversingDecoder()) //
+				.load();
+
+		ConfigValue value = config.key("secretKey");
+		value.asString();
+		assertTrue(value.toString().contains("rev:terces"));
+		assertFalse(value.toString().contains("secret,"));
+	}
+
+	@Test
+	public void flattensJsonFromClasspath() {
+		config = defaultFromClassloaderJson("classpath3.json").load();
+
+		assertEquals("value1-json", config.key("key1").asString());
+		assertEquals("db.example.com", config.key("db.host").asString());
+		assertEquals(5432, config.key("db.port").asLong());
+		assertEquals(-1500.0, config.key("db.ratio").asDouble(), 1E-9);
+		assertTrue(config.key("db.ssl").isTrue());
+		assertFalse(config.key("db.password").exists());
+		assertFalse(config.key("db.options").exists());
+		assertEquals("a \"quoted\"", config.key("servers.0.host").asString());
+		assertEquals("b", config.key("servers.1.host").asString());
+		assertEquals("y", config.key("servers.1.tags.1").asString());
+		assertEquals("язык", config.key("unicode").asString());
+	}
+
+	@Test
+	public void jsonTakesPartInOverrideChain() throws Exception {
+		String filename = createFilesystemProps();
+
+		config = defaultFromClassloader("classpath1.properties") //
+				.overrideFromClassloaderJson("classpath3.json") //
+				.overrideFromFilesystem(filename) //
+				.load();
+
+		assertEquals("value1-3", config.key("key1").asString());
+		assertEquals("value2", config.key("key2").asString());
+		assertEquals("db.example.com", config.key("db.host").asString());
+		assertTrue(config.key("db.host").loadedFrom().toString().contains("classpath3.json"));
+	}
+
+	@Test
+	public void loadsJsonFromFilesystem() throws Exception {
+		String filename = createFile("{\"key1\": \"value1-fs\", \"a\": {\"b\": [1, 2]}}");
+
+		config = defaultFromClassloader("classpath1.properties").overrideFromFilesystemJson(filename).load();
+
+		assertEquals("value1-fs", config.key("key1").asString());
+		assertEquals(2, config.key("a.b.1").asLong());
+		assertTrue(config.key("a.b.0").loadedFrom().toString().contains(filename));
+	}
+
+	@Test
+	public void skipsMalformedJsonLocation() throws Exception {
+		String filename = createFile("{\"key1\": \"value1-fs\", \"key2\" 3}");
+
+		config = defaultFromClassloader("classpath1.properties").overrideFromFilesystemJson(filename).load();
+
+		assertEquals("value1", config.key("key1").asString());
+	}
+
+	@Test
+	public void skipsTooDeeplyNestedJsonLocation() throws Exception {
+		StringBuilder json = new StringBuilder("{\"a\":");
+		for (int i = 0; i < 200000; i++) {
+			json.append('[');
+		}
+		String filename = createFile(json.toString());
+
+		config = defaultFromClassloader("classpath1.properties").overrideFromFilesystemJson(filename).load();
+
+		assertEquals("value1", config.key("key1").asString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsNonObjectJsonDocument() throws Exception {
+		String filename = createFile("[1, 2]");
+
+		PropertiesConfigBuilder.defaultFromFilesystemJson(filename).load();
+	}
+
+	@Test
+	public void overridesFromSystemPropertiesSnapshottedAtLoad() {
+		System.setProperty("configtest.key1", "value1-sys");
+		try {
+			config = defaultFromClassloader("classpath1.properties") //
+					.overrideFromSystemProperties("configtest.") //
+					.load();
+		} finally {
+			System.clearProperty("configtest.key1");
+		}
+
+		assertEquals("value1-sys", config.key("key1").asString());
+		assertEquals("value2", config.key("key2").asString());
+		assertTrue(config.key("key1").loadedFrom().toString().contains("system properties"));
+	}
+
+	@Test
+	public void overridesFromEnvironmentWithMappedNames() {
+		Map<String, String> env = new HashMap<>();
+		env.put("MYAPP_KEY2", "value2-env");
+		env.put("MYAPP_DB_POOL_SIZE", "20");
+		env.put("MYAPP_", "ignored");
+		env.put("OTHER_KEY3", "ignored");
+
+		config = new PropertiesConfig(Arrays.<Location>asList( //
+				new PropertiesConfig.ContextClassloader("classpath1.properties"), //
+				new PropertiesConfig.Environment("MYAPP_", env)));
+
+		assertEquals("value2-env", config.key("key2").asString());
+		assertEquals(20, config.key("db.pool.size").asLong());
+		assertEquals("value3", config.key("key3").asString());
+		assertFalse(config.key("").exists());
+		assertTrue(config.key("key2").loadedFrom().toString().contains("environment"));
+	}
+
+	@Test
+	public void acceptsNullEnvironmentAndSystemPropertiesPrefix() {
+		config = defaultFromClassloader("classpath1.properties") //
+				.overrideFromEnvironment(null) //
+				.overrideFromSystemProperties(null) //
+				.load();
+
+		assertEquals("value1", config.key("key1").asString());
+	}
+
+	@Test
+	public void servesSharedConfigFromMappedFile() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+		String filename = createFilesystemProps();
+
+		Config published = defaultFromClassloader("classpath1.properties") //
+				.overrideFromClassloader("classpath2.properties") //
+				.overrideFromFilesystem(filename) //
+				.shareViaDirectory(dir).load();
+		assertTrue(published instanceof PropertiesConfig);
+
+		config = defaultFromClassloader("classpath1.properties") //
+				.overrideFromClassloader("classpath2.properties") //
+				.overrideFromFilesystem(filename) //
+				.decodeValuesWithPrefix("rev:", new ReversingDecoder()) //
+				.shareViaDirectory(dir).load();
+		assertTrue(config instanceof MappedConfig);
+
+		assertEquals("value1-3", config.key("key1").asString());
+		assertEquals("value2-2", config.key("key2").asString());
+		assertEquals("value3", config.key("key3").asString());
+		assertEquals("value6", config.key("key6").asString());
+		assertEquals("язык", config.key("русский").asString());
+		assertEquals("secret", config.key("secretKey").asString());
+		assertFalse(config.key("key5").exists());
+		assertFalse(config.key(null).exists());
+		assertTrue(config.key("key1").loadedFrom().toString().contains(filename));
+		assertTrue(config.key("key2").loadedFrom().toString().contains("classpath2.properties"));
+	}
+
+	@Test
+	public void republishesSharedConfigWhenLocationChanges() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+		String filename = createFilesystemProps();
+
+		defaultFromClassloader("classpath1.properties").shareViaDirectory(dir).load();
+		defaultFromFilesystem(filename).shareViaDirectory(dir).load();
+
+		Writer w = new FileWriter(filename);
+		w.write("key1 = changed-and-longer\n");
+		w.close();
+
+		config = defaultFromFilesystem(filename).shareViaDirectory(dir).load();
+		assertTrue(config instanceof PropertiesConfig);
+		assertEquals("changed-and-longer", config.key("key1").asString());
+
+		config = defaultFromFilesystem(filename).shareViaDirectory(dir).load();
+		assertTrue(config instanceof MappedConfig);
+		assertEquals("changed-and-longer", config.key("key1").asString());
+		assertFalse(config.key("key6").exists());
+		assertEquals(2, new File(dir).list().length);
+	}
+
+	@Test
+	public void republishesSharedConfigOnSameSizeEditWithRestoredModificationTime() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+		String filename = createFile("port = 8080\n");
+		File file = new File(filename);
+		long lastModified = file.lastModified();
+
+		defaultFromFilesystem(filename).shareViaDirectory(dir).load();
+
+		Writer w = new FileWriter(file);
+		w.write("port = 9090\n");
+		w.close();
+		assertTrue(file.setLastModified(lastModified));
+
+		config = defaultFromFilesystem(filename).shareViaDirectory(dir).load();
+		assertTrue(config instanceof PropertiesConfig);
+		assertEquals(9090, config.key("port").asLong());
+
+		config = defaultFromFilesystem(filename).shareViaDirectory(dir).load();
+		assertTrue(config instanceof MappedConfig);
+		assertEquals(9090, config.key("port").asLong());
+	}
+
+	@Test
+	public void republishesSharedConfigWhenSystemPropertiesChangeAmbiguously() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+
+		System.setProperty("configtest.shared.a", "1, b=2");
+		try {
+			defaultFromClassloader("classpath1.properties") //
+					.overrideFromSystemProperties("configtest.shared.") //
+					.shareViaDirectory(dir).load();
+
+			System.setProperty("configtest.shared.a", "1");
+			System.setProperty("configtest.shared.b", "2");
+			config = defaultFromClassloader("classpath1.properties") //
+					.overrideFromSystemProperties("configtest.shared.") //
+					.shareViaDirectory(dir).load();
+		} finally {
+			System.clearProperty("configtest.shared.a");
+			System.clearProperty("configtest.shared.b");
+		}
+
+		assertTrue(config instanceof PropertiesConfig);
+		assertEquals("1", config.key("a").asString());
+		assertEquals("2", config.key("b").asString());
+	}
+
+	@Test
+	public void doesNotPublishSharedConfigIfLocationChangesWhileLoading() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+		Location changing = new Location("changing") {
+			private int reads = 0;
+
+			@Override
+			protected InputStream getInputStreamAndSetResolvedLocation() {
+				String content = reads++ == 0 ? "key1 = before\n" : "key1 = after\n";
+				return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+			}
+		};
+
+		config = SharedConfigFile.loadOrPublish(new File(dir), Arrays.asList(changing),
+				Collections.<PropertiesConfig.DecoderRule>emptyList());
+
+		assertTrue(config instanceof PropertiesConfig);
+		assertEquals("after", config.key("key1").asString());
+		assertEquals(0, new File(dir).list().length);
+	}
+
+	@Test
+	public void fallsBackToLoadingIfSharedDirectoryIsUnusable() throws Exception {
+		String notADirectory = createFilesystemProps();
+
+		config = defaultFromClassloader("classpath1.properties").shareViaDirectory(notADirectory).load();
+		assertEquals("value1", config.key("key1").asString());
+
+		config = defaultFromClassloader("classpath1.properties").shareViaDirectory("invalid\0path").load();
+		assertEquals("value1", config.key("key1").asString());
+	}
+
+	@Test
+	public void fallsBackToLoadingIfSharedFileHasCorruptEntry() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+
+		defaultFromClassloader("classpath1.properties").shareViaDirectory(dir).load();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(new File(dir).toPath())) {
+			for (Path file : files) {
+				byte[] content = Files.readAllBytes(file);
+				// location index of the last entry
+				content[content.length - 1] = 42;
+				Files.write(file, content);
+			}
+		}
+
+		config = defaultFromClassloader("classpath1.properties").shareViaDirectory(dir).load();
+		assertTrue(config instanceof PropertiesConfig);
+		assertEquals("value1", config.key("key1").asString());
+		assertEquals("язык", config.key("русский").asString());
+	}
+
+	@Test
+	public void fallsBackToLoadingIfSharedFileIsCorrupt() throws Exception {
+		String dir = Files.createTempDirectory("configtest").toString();
+
+		defaultFromClassloader("classpath1.properties").shareViaDirectory(dir).load();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(new File(dir).toPath())) {
+			for (Path file : files) {
+				Files.write(file, new byte[] { 1, 2, 3 });
+			}
+		}
+
+		config = defaultFromClassloader("classpath1.properties").shareViaDirectory(dir).load();
+		assertTrue(config instanceof PropertiesConfig);
+		assertEquals("value1", config.key("key1").asString());
+
+		config = defaultFromClassloader("classpath1.properties").shareViaDirectory(dir).load();
+		assertTrue(config instanceof MappedConfig);
+		assertEquals("value1", config.key("key1").asString());
+	}
+
+	private static final class ReversingDecoder implements ValueDecoder {
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public String decode(String encoded) {
+			calls.incrementAndGet();
+			return new StringBuilder(encoded).reverse().toString();
+		}
+	}
+
 	private String createFilesystemProps() throws Exception {
+		return createFile("key6 = value6\nkey1  : value1-3\n");
+	}
+
+	private String createFile(String content) throws Exception {
 		File f = File.createTempFile("configtest", "properties");
 		f.deleteOnExit();
 
 		Writer w = new FileWriter(f);
-		w.write("key6 = value6\nkey1  : value1-3\n");
+		w.write(content);
 		w.close();
 
 		return f.getAbsolutePath();